@@ -19,7 +19,9 @@ package org.apache.ignite.example;
 
 import org.apache.ignite.Ignite;
 import org.apache.ignite.IgniteCache;
+import org.apache.ignite.IgniteException;
 import org.apache.ignite.Ignition;
+import org.apache.ignite.cache.CacheMode;
 import org.apache.ignite.cache.affinity.rendezvous.RendezvousAffinityFunction;
 import org.apache.ignite.cache.query.QueryCursor;
 import org.apache.ignite.cache.query.ScanQuery;
@@ -29,38 +31,130 @@ import org.apache.ignite.ml.clustering.kmeans.KMeansModel;
 import org.apache.ignite.ml.clustering.kmeans.KMeansTrainer;
 import org.apache.ignite.ml.math.Tracer;
 import org.apache.ignite.ml.math.distances.EuclideanDistance;
+import org.apache.ignite.ml.math.functions.IgniteBiFunction;
+import org.apache.ignite.ml.math.primitives.vector.Vector;
 
 import javax.cache.Cache;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Scanner;
 import org.apache.ignite.ml.math.primitives.vector.VectorUtils;
 
 public class ClientNode {
 
-    public static void main(String... args) throws FileNotFoundException {
-        IgniteConfiguration configuration = new IgniteConfiguration();
-        configuration.setClientMode(false);
+    private static final int MAX_ITERATIONS = 10;
+
+    private static final int MAX_CHECKPOINT_RETRIES = 3;
+
+    private static final String INCOMPLETE_TRAIN_DATA =
+            "Train data lost rows with a node that left the cluster, restart to reload it";
+
+    public static void main(String... args) throws FileNotFoundException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+
+        IgniteConfiguration configuration = NodeConfiguration.createClient();
 
         try (Ignite ignite = Ignition.start(configuration)) {
-            IgniteCache<Integer, TitanicObservation> trainData = getCache(ignite, "TITANIC_TRAIN");
-            IgniteCache<Integer, TitanicObservation> testData = getCache(ignite, "TITANIC_TEST");
+            NodeConfiguration.activate(ignite);
+
+            IgniteCache<Integer, TitanicObservation> trainData = getCache(ignite, "TITANIC_TRAIN",
+                    NodeConfiguration.TRAIN_REGION);
+            IgniteCache<Integer, TitanicObservation> testData = getCache(ignite, "TITANIC_TEST",
+                    NodeConfiguration.TEST_REGION);
+
+            boolean restored = NodeConfiguration.isLoaded(ignite, trainData)
+                    && NodeConfiguration.isLoaded(ignite, testData);
+            if (!restored) {
+                NodeConfiguration.resetLoaded(ignite, trainData);
+                NodeConfiguration.resetLoaded(ignite, testData);
+
+                loadData("src/main/resources/titanic-train.csv", trainData);
+                loadData("src/main/resources/titanic-test.csv", testData);
 
-            loadData("src/main/resources/titanic-train.csv", trainData);
-            loadData("src/main/resources/titanic-test.csv", testData);
+                NodeConfiguration.markLoaded(ignite, trainData);
+                NodeConfiguration.markLoaded(ignite, testData);
+            }
+
+            System.out.printf(">>> Ready to train in %d ms (%s)\n", System.currentTimeMillis() - startTime,
+                    restored ? "caches kept from an earlier run" : "caches loaded from CSV");
 
             KMeansTrainer trainer = new KMeansTrainer()
                     .withAmountOfClusters(2)
                     .withDistance(new EuclideanDistance())
                     .withSeed(123L);
 
-            KMeansModel mdl = trainer.fit(
-                    ignite,
-                    trainData,
-                    (k, v) -> VectorUtils.of(v.getFeatures()),        // Feature extractor.
-                    (k, v) -> v.getSurvivedClass()                    // Label extractor.
-            );
+            IgniteBiFunction<Integer, TitanicObservation, Vector> featureExtractor =
+                    (k, v) -> VectorUtils.of(v.getFeatures());
+            IgniteBiFunction<Integer, TitanicObservation, Double> lbExtractor = (k, v) -> v.getSurvivedClass();
+
+            // Training runs in chunks of checkpointInterval iterations. The centers and the iteration counter are
+            // stored after every chunk, so a restarted client or a fit interrupted by a topology change resumes there.
+            int checkpointInterval = Integer.getInteger("ignite.checkpoint.interval", 5);
+            if (checkpointInterval < 1)
+                throw new IllegalArgumentException("Checkpoint interval must be positive: " + checkpointInterval);
+
+            IgniteCache<String, TrainingCheckpoint> checkpoints = getCheckpointCache(ignite);
+
+            // Checkpoints were taken on the data that has just been replaced.
+            if (!restored)
+                checkpoints.clear();
+
+            // A checkpoint is only resumed by a run with the same configuration.
+            String checkpointKey = String.format("KMEANS[k=%d, maxIterations=%d, epsilon=%s, seed=%d]",
+                    trainer.getAmountOfClusters(), MAX_ITERATIONS, trainer.getEpsilon(), trainer.getSeed());
+
+            TrainingCheckpoint checkpoint = checkpoints.get(checkpointKey);
+
+            KMeansModel mdl = checkpoint == null ? null : checkpoint.getModel();
+            int iterations = checkpoint == null ? 0 : checkpoint.getIterations();
+            int failures = 0;
+
+            if (iterations > 0)
+                System.out.println(">>> Resuming training from checkpoint at iteration " + iterations);
+
+            while (iterations < MAX_ITERATIONS) {
+                int chunk = Math.min(checkpointInterval, MAX_ITERATIONS - iterations);
+
+                trainer.withMaxIterations(chunk);
+
+                KMeansModel prevMdl = mdl;
+
+                try {
+                    mdl = prevMdl == null
+                            ? trainer.fit(ignite, trainData, featureExtractor, lbExtractor)
+                            : trainer.update(prevMdl, ignite, trainData, featureExtractor, lbExtractor);
+                }
+                catch (IgniteException e) {
+                    // Retrying only helps if the failure did not take train rows with it.
+                    if (!NodeConfiguration.isComplete(ignite, trainData))
+                        throw new IgniteException(INCOMPLETE_TRAIN_DATA, e);
+
+                    if (++failures > MAX_CHECKPOINT_RETRIES)
+                        throw e;
+
+                    System.out.println(">>> Training interrupted, resuming from iteration " + iterations + ": "
+                        + e.getMessage());
+
+                    continue;
+                }
+
+                // A node can leave between two iterations without failing the fit.
+                if (!NodeConfiguration.isComplete(ignite, trainData))
+                    throw new IgniteException(INCOMPLETE_TRAIN_DATA);
+
+                if (converged(prevMdl, mdl, trainer.getEpsilon()))
+                    break;
+
+                iterations += chunk;
+                failures = 0;
+
+                checkpoints.put(checkpointKey, new TrainingCheckpoint(mdl, iterations));
+            }
+
+            // The next run trains from scratch.
+            checkpoints.remove(checkpointKey);
 
             System.out.println(">>> KMeans centroids");
             Tracer.showAscii(mdl.getCenters()[0]);
@@ -123,17 +217,70 @@ public class ClientNode {
         }
     }
 
-    private static IgniteCache<Integer, TitanicObservation> getCache(Ignite ignite, String cacheName) {
+    private static IgniteCache<Integer, TitanicObservation> getCache(Ignite ignite, String cacheName,
+            String dataRegionName) {
 
         CacheConfiguration<Integer, TitanicObservation> cacheConfiguration = new CacheConfiguration<>();
         cacheConfiguration.setName(cacheName);
-        cacheConfiguration.setAffinity(new RendezvousAffinityFunction(false, 10));
+        cacheConfiguration.setDataRegionName(dataRegionName);
+        int partitions = NodeConfiguration.partitions(ignite);
+        cacheConfiguration.setAffinity(new RendezvousAffinityFunction(false, partitions));
+
+        IgniteCache<Integer, TitanicObservation> cache = ignite.getOrCreateCache(cacheConfiguration);
+
+        NodeConfiguration.checkPartitions(cache, partitions);
+
+        return cache;
+    }
+
+    /** Checkpoints are replicated so that they survive the loss of any single node. */
+    private static IgniteCache<String, TrainingCheckpoint> getCheckpointCache(Ignite ignite) {
+
+        CacheConfiguration<String, TrainingCheckpoint> cacheConfiguration = new CacheConfiguration<>();
+        cacheConfiguration.setName("TITANIC_CHECKPOINTS");
+        cacheConfiguration.setDataRegionName(NodeConfiguration.TRAIN_REGION);
+        cacheConfiguration.setCacheMode(CacheMode.REPLICATED);
 
-        IgniteCache<Integer, TitanicObservation> cache = ignite.createCache(cacheConfiguration);
+        IgniteCache<String, TrainingCheckpoint> cache = ignite.getOrCreateCache(cacheConfiguration);
 
         return cache;
     }
 
+    /** Same stopping rule as {@link KMeansTrainer}: no center moved further than epsilon squared. */
+    private static boolean converged(KMeansModel prevMdl, KMeansModel mdl, double epsilon) {
+        if (prevMdl == null)
+            return false;
+
+        for (int i = 0; i < mdl.getAmountOfClusters(); i++) {
+            if (mdl.distanceMeasure().compute(prevMdl.getCenters()[i], mdl.getCenters()[i]) > epsilon * epsilon)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static class TrainingCheckpoint implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final KMeansModel model;
+
+        private final int iterations;
+
+        public TrainingCheckpoint(KMeansModel model, int iterations) {
+            this.model = model;
+            this.iterations = iterations;
+        }
+
+        public KMeansModel getModel() {
+            return model;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+    }
+
     private static class TitanicObservation {
 
         private final double[] features;
@@ -38,16 +38,34 @@ import org.apache.ignite.ml.math.primitives.vector.VectorUtils;
 
 public class ClientNode {
 
-    public static void main(String... args) throws FileNotFoundException {
-        IgniteConfiguration configuration = new IgniteConfiguration();
-        configuration.setClientMode(false);
+    public static void main(String... args) throws FileNotFoundException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+
+        IgniteConfiguration configuration = NodeConfiguration.createClient();
 
         try (Ignite ignite = Ignition.start(configuration)) {
-            IgniteCache<Integer, IrisObservation> trainData = getCache(ignite, "IRIS_TRAIN");
-            IgniteCache<Integer, IrisObservation> testData = getCache(ignite, "IRIS_TEST");
+            NodeConfiguration.activate(ignite);
+
+            IgniteCache<Integer, IrisObservation> trainData = getCache(ignite, "IRIS_TRAIN",
+                    NodeConfiguration.TRAIN_REGION);
+            IgniteCache<Integer, IrisObservation> testData = getCache(ignite, "IRIS_TEST",
+                    NodeConfiguration.TEST_REGION);
+
+            boolean restored = NodeConfiguration.isLoaded(ignite, trainData)
+                    && NodeConfiguration.isLoaded(ignite, testData);
+            if (!restored) {
+                NodeConfiguration.resetLoaded(ignite, trainData);
+                NodeConfiguration.resetLoaded(ignite, testData);
+
+                loadData("src/main/resources/iris-train.csv", trainData);
+                loadData("src/main/resources/iris-test.csv", testData);
+
+                NodeConfiguration.markLoaded(ignite, trainData);
+                NodeConfiguration.markLoaded(ignite, testData);
+            }
 
-            loadData("src/main/resources/iris-train.csv", trainData);
-            loadData("src/main/resources/iris-test.csv", testData);
+            System.out.printf(">>> Ready to train in %d ms (%s)\n", System.currentTimeMillis() - startTime,
+                    restored ? "caches kept from an earlier run" : "caches loaded from CSV");
 
             KNNClassificationTrainer trainer = new KNNClassificationTrainer();
 
@@ -107,13 +125,15 @@ public class ClientNode {
         }
     }
 
-    private static IgniteCache<Integer, IrisObservation> getCache(Ignite ignite, String cacheName) {
+    private static IgniteCache<Integer, IrisObservation> getCache(Ignite ignite, String cacheName,
+            String dataRegionName) {
 
         CacheConfiguration<Integer, IrisObservation> cacheConfiguration = new CacheConfiguration<>();
         cacheConfiguration.setName(cacheName);
+        cacheConfiguration.setDataRegionName(dataRegionName);
         cacheConfiguration.setAffinity(new RendezvousAffinityFunction(false, 10));
 
-        IgniteCache<Integer, IrisObservation> cache = ignite.createCache(cacheConfiguration);
+        IgniteCache<Integer, IrisObservation> cache = ignite.getOrCreateCache(cacheConfiguration);
 
         return cache;
     }
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.ignite.example;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.configuration.CacheConfiguration;
+import org.apache.ignite.configuration.DataRegionConfiguration;
+import org.apache.ignite.configuration.DataStorageConfiguration;
+import org.apache.ignite.configuration.IgniteConfiguration;
+import org.apache.ignite.configuration.WALMode;
+
+/**
+ * Node configuration shared by {@link ServerNode} and {@link ClientNode}. Train and test caches are placed into
+ * dedicated, sized data regions. Run with {@code -Dignite.persistence=true} to back these regions with Ignite native
+ * persistence, so that a restarted cluster can train on already ingested data instead of reloading the CSV files.
+ * Maximum region sizes can be changed with {@code -Dignite.train.region.mb} and {@code -Dignite.test.region.mb}.
+ */
+public class NodeConfiguration {
+
+    public static final String TRAIN_REGION = "TRAIN_REGION";
+
+    public static final String TEST_REGION = "TEST_REGION";
+
+    private static final long MB = 1024L * 1024L;
+
+    private static final long INITIAL_REGION_SIZE = 32L * MB;
+
+    public static boolean isPersistenceEnabled() {
+        return Boolean.getBoolean("ignite.persistence");
+    }
+
+    public static IgniteConfiguration create() {
+        boolean persistence = isPersistenceEnabled();
+
+        long trainRegionSize = Long.getLong("ignite.train.region.mb", 1024L) * MB;
+        long testRegionSize = Long.getLong("ignite.test.region.mb", 256L) * MB;
+
+        // Regions start small and grow on demand up to their maximum size, the example data sets only take a few MB.
+        DataRegionConfiguration trainRegion = new DataRegionConfiguration();
+        trainRegion.setName(TRAIN_REGION);
+        trainRegion.setInitialSize(Math.min(INITIAL_REGION_SIZE, trainRegionSize));
+        trainRegion.setMaxSize(trainRegionSize);
+        trainRegion.setPersistenceEnabled(persistence);
+        trainRegion.setMetricsEnabled(true);
+
+        DataRegionConfiguration testRegion = new DataRegionConfiguration();
+        testRegion.setName(TEST_REGION);
+        testRegion.setInitialSize(Math.min(INITIAL_REGION_SIZE, testRegionSize));
+        testRegion.setMaxSize(testRegionSize);
+        testRegion.setPersistenceEnabled(persistence);
+        testRegion.setMetricsEnabled(true);
+
+        // The default region only keeps the temporary caches Ignite ML creates for dataset contexts, which are
+        // rebuilt on every fit and never need to survive a restart.
+        DataRegionConfiguration defaultRegion = new DataRegionConfiguration();
+        defaultRegion.setName("DEFAULT_REGION");
+        defaultRegion.setInitialSize(INITIAL_REGION_SIZE);
+        defaultRegion.setMaxSize(256L * MB);
+        defaultRegion.setPersistenceEnabled(false);
+
+        DataStorageConfiguration storageConfiguration = new DataStorageConfiguration();
+        storageConfiguration.setDefaultDataRegionConfiguration(defaultRegion);
+        storageConfiguration.setDataRegionConfigurations(trainRegion, testRegion);
+
+        if (persistence) {
+            // Training data can always be reloaded from CSV, so a fsync per commit is not worth its cost.
+            storageConfiguration.setWalMode(WALMode.LOG_ONLY);
+            storageConfiguration.setWalSegmentSize((int) (128 * MB));
+            storageConfiguration.setWalCompactionEnabled(true);
+            storageConfiguration.setWriteThrottlingEnabled(true);
+            storageConfiguration.setCheckpointFrequency(60_000L);
+        }
+
+        IgniteConfiguration configuration = new IgniteConfiguration();
+        configuration.setClientMode(false);
+        configuration.setDataStorageConfiguration(storageConfiguration);
+
+        return configuration;
+    }
+
+    /**
+     * Configuration for {@link ClientNode}. With persistence it joins as a client node, so it owns no partitions and
+     * the baseline topology is made of server nodes only: the caches stay complete on the servers after every run.
+     * Without persistence it also stores data, so it can run on its own.
+     */
+    public static IgniteConfiguration createClient() {
+        IgniteConfiguration configuration = create();
+        configuration.setClientMode(isPersistenceEnabled());
+
+        return configuration;
+    }
+
+    /**
+     * Activates the cluster on its first start with persistence. Once a baseline topology exists, the cluster is
+     * activated automatically when all baseline nodes have joined, so this only waits for that to happen.
+     */
+    public static void activate(Ignite ignite) throws InterruptedException {
+        if (!isPersistenceEnabled() || ignite.cluster().active())
+            return;
+
+        if (ignite.cluster().currentBaselineTopology() == null) {
+            ignite.cluster().active(true);
+
+            return;
+        }
+
+        System.out.println(">>> Waiting for all baseline nodes to join");
+
+        while (!ignite.cluster().active())
+            Thread.sleep(1000);
+    }
+
+    /**
+     * Checks whether the cache was fully loaded by an earlier run and survived the restart. Only a persistent cache
+     * can be trusted here: an in-memory cache without backups loses the partitions of every node that has left.
+     */
+    public static boolean isLoaded(Ignite ignite, IgniteCache<?, ?> cache) {
+        if (!isPersistenceEnabled())
+            return false;
+
+        Integer loadedRows = getLoadMarkers(ignite).get(cache.getName());
+
+        return loadedRows != null && loadedRows == cache.size();
+    }
+
+    /** Records the number of rows of a completed load, see {@link #isLoaded(Ignite, IgniteCache)}. */
+    public static void markLoaded(Ignite ignite, IgniteCache<?, ?> cache) {
+        getLoadMarkers(ignite).put(cache.getName(), cache.size());
+    }
+
+    /** Clears the cache and its load marker before the cache is loaded again. */
+    public static void resetLoaded(Ignite ignite, IgniteCache<?, ?> cache) {
+        getLoadMarkers(ignite).remove(cache.getName());
+        cache.clear();
+    }
+
+    private static IgniteCache<String, Integer> getLoadMarkers(Ignite ignite) {
+        CacheConfiguration<String, Integer> cacheConfiguration = new CacheConfiguration<>();
+        cacheConfiguration.setName("LOAD_MARKERS");
+        cacheConfiguration.setDataRegionName(TRAIN_REGION);
+        cacheConfiguration.setCacheMode(CacheMode.REPLICATED);
+
+        return ignite.getOrCreateCache(cacheConfiguration);
+    }
+}
@@ -35,18 +35,36 @@ import java.util.Scanner;
 
 public class ClientNode {
 
-    public static void main(String... args) {
-        IgniteConfiguration configuration = new IgniteConfiguration();
-        configuration.setClientMode(false);
+    public static void main(String... args) throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+
+        IgniteConfiguration configuration = NodeConfiguration.createClient();
 
         try (Ignite ignite = Ignition.start(configuration)) {
+            NodeConfiguration.activate(ignite);
+
             // Create caches for train and test data.
-            IgniteCache<Integer, HouseObservation> trainData = createCache(ignite, "BOSTON_HOUSING_TRAIN");
-            IgniteCache<Integer, HouseObservation> testData = createCache(ignite, "BOSTON_HOUSING_TEST");
+            IgniteCache<Integer, HouseObservation> trainData = createCache(ignite, "BOSTON_HOUSING_TRAIN",
+                    NodeConfiguration.TRAIN_REGION);
+            IgniteCache<Integer, HouseObservation> testData = createCache(ignite, "BOSTON_HOUSING_TEST",
+                    NodeConfiguration.TEST_REGION);
+
+            // Load train and test data into created caches unless they were restored from disk.
+            boolean restored = NodeConfiguration.isLoaded(ignite, trainData)
+                    && NodeConfiguration.isLoaded(ignite, testData);
+            if (!restored) {
+                NodeConfiguration.resetLoaded(ignite, trainData);
+                NodeConfiguration.resetLoaded(ignite, testData);
+
+                loadData("boston-housing-train.csv", trainData);
+                loadData("boston-housing-test.csv", testData);
+
+                NodeConfiguration.markLoaded(ignite, trainData);
+                NodeConfiguration.markLoaded(ignite, testData);
+            }
 
-            // Load train and test data into created caches.
-            loadData("boston-housing-train.csv", trainData);
-            loadData("boston-housing-test.csv", testData);
+            System.out.printf(">>> Ready to train in %d ms (%s)\n", System.currentTimeMillis() - startTime,
+                    restored ? "caches kept from an earlier run" : "caches loaded from CSV");
 
             // Create a linear regression trainer and train the model.
             DatasetTrainer<LinearRegressionModel, Double> trainer = new LinearRegressionLSQRTrainer();
@@ -86,12 +104,14 @@ public class ClientNode {
         }
     }
 
-    private static IgniteCache<Integer, HouseObservation> createCache(Ignite ignite, String name) {
+    private static IgniteCache<Integer, HouseObservation> createCache(Ignite ignite, String name,
+            String dataRegionName) {
         CacheConfiguration<Integer, HouseObservation> cacheConfiguration = new CacheConfiguration<>();
         cacheConfiguration.setAffinity(new RendezvousAffinityFunction(false, 10));
         cacheConfiguration.setName(name);
+        cacheConfiguration.setDataRegionName(dataRegionName);
 
-        return ignite.createCache(cacheConfiguration);
+        return ignite.getOrCreateCache(cacheConfiguration);
     }
 
     private static void loadData(String fileName, IgniteCache<Integer, HouseObservation> cache) {
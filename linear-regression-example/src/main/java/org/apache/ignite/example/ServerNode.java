@@ -25,8 +25,7 @@ public class ServerNode {
 
     public static void main(String... args) {
         new Thread(() -> {
-            IgniteConfiguration configuration = new IgniteConfiguration();
-            configuration.setClientMode(false);
+            IgniteConfiguration configuration = NodeConfiguration.create();
 
             try (Ignite ignite = Ignition.start(configuration)) {
                 Thread.currentThread().join();
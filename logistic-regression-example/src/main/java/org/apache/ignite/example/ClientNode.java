@@ -19,12 +19,19 @@ package org.apache.ignite.example;
 
 import org.apache.ignite.Ignite;
 import org.apache.ignite.IgniteCache;
+import org.apache.ignite.IgniteException;
 import org.apache.ignite.Ignition;
+import org.apache.ignite.cache.CacheMode;
 import org.apache.ignite.cache.affinity.rendezvous.RendezvousAffinityFunction;
-import org.apache.ignite.cache.query.QueryCursor;
-import org.apache.ignite.cache.query.ScanQuery;
 import org.apache.ignite.configuration.CacheConfiguration;
 import org.apache.ignite.configuration.IgniteConfiguration;
+import org.apache.ignite.lang.IgniteBiPredicate;
+import org.apache.ignite.ml.dataset.DatasetFactory;
+import org.apache.ignite.ml.dataset.primitive.SimpleLabeledDataset;
+import org.apache.ignite.ml.dataset.primitive.context.EmptyContext;
+import org.apache.ignite.ml.dataset.primitive.data.SimpleLabeledDatasetData;
+import org.apache.ignite.ml.math.functions.IgniteBiFunction;
+import org.apache.ignite.ml.math.primitives.vector.Vector;
 import org.apache.ignite.ml.math.primitives.vector.VectorUtils;
 import org.apache.ignite.ml.nn.UpdatesStrategy;
 import org.apache.ignite.ml.optimization.updatecalculators.SimpleGDParameterUpdate;
@@ -32,25 +39,50 @@ import org.apache.ignite.ml.optimization.updatecalculators.SimpleGDUpdateCalcula
 import org.apache.ignite.ml.regressions.logistic.binomial.LogisticRegressionModel;
 import org.apache.ignite.ml.regressions.logistic.binomial.LogisticRegressionSGDTrainer;
 
-import javax.cache.Cache;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Scanner;
 
 public class ClientNode {
 
-    public static void main(String... args) throws FileNotFoundException {
-        IgniteConfiguration configuration = new IgniteConfiguration();
-        configuration.setClientMode(false);
+    private static final int MAX_ITERATIONS = 100000;
+
+    private static final int MAX_CHECKPOINT_RETRIES = 3;
+
+    private static final String INCOMPLETE_TRAIN_DATA =
+            "Train data lost rows with a node that left the cluster, restart to reload it";
+
+    public static void main(String... args) throws Exception {
+        long startTime = System.currentTimeMillis();
+
+        IgniteConfiguration configuration = NodeConfiguration.createClient();
 
         try (Ignite ignite = Ignition.start(configuration)) {
-            IgniteCache<Integer, FraudObservation> trainData = getCache(ignite, "FRAUD_TRAIN");
-            IgniteCache<Integer, FraudObservation> testData = getCache(ignite, "FRAUD_TEST");
+            NodeConfiguration.activate(ignite);
 
-            Loader loader = new Loader();
-            loader.load("fraud-train.csv", trainData);
-            loader.load("fraud-test.csv", testData);
+            IgniteCache<Integer, FraudObservation> trainData = getCache(ignite, "FRAUD_TRAIN",
+                    NodeConfiguration.TRAIN_REGION);
+            IgniteCache<Integer, FraudObservation> testData = getCache(ignite, "FRAUD_TEST",
+                    NodeConfiguration.TEST_REGION);
+
+            boolean restored = NodeConfiguration.isLoaded(ignite, trainData)
+                    && NodeConfiguration.isLoaded(ignite, testData);
+            if (!restored) {
+                NodeConfiguration.resetLoaded(ignite, trainData);
+                NodeConfiguration.resetLoaded(ignite, testData);
+
+                Loader loader = new Loader();
+                loader.load("fraud-train.csv", trainData);
+                loader.load("fraud-test.csv", testData);
+
+                NodeConfiguration.markLoaded(ignite, trainData);
+                NodeConfiguration.markLoaded(ignite, testData);
+            }
+
+            System.out.printf(">>> Ready to train in %d ms (%s)\n", System.currentTimeMillis() - startTime,
+                    restored ? "caches kept from an earlier run" : "caches loaded from CSV");
 
             LogisticRegressionSGDTrainer<?> trainer = new LogisticRegressionSGDTrainer<>()
                     .withUpdatesStgy(new UpdatesStrategy<>(
@@ -58,82 +90,209 @@ public class ClientNode {
                             SimpleGDParameterUpdate::sumLocal,
                             SimpleGDParameterUpdate::avg
                     ))
-                    .withMaxIterations(100000)
                     .withLocIterations(100)
-                    .withBatchSize(10)
-                    .withSeed(123L);
+                    .withBatchSize(10);
+
+            // Non-fraud rows are downsampled while partitions are built, so training cost scales with the fraud class.
+            // The default keeps about 427 of the 1422 non-fraud rows in fraud-train.csv against 246 fraud rows.
+            double noFraudRate = Double.parseDouble(System.getProperty("ignite.sampling.nofraud", "0.3"));
+            double fraudRate = Double.parseDouble(System.getProperty("ignite.sampling.fraud", "1.0"));
+
+            StratifiedSampler sampler = new StratifiedSampler(123L, noFraudRate, fraudRate);
+
+            IgniteBiFunction<Integer, FraudObservation, Vector> featureExtractor =
+                    (k, v) -> VectorUtils.of(v.getFeatures());
+            IgniteBiFunction<Integer, FraudObservation, Double> lbExtractor = (k, v) -> v.getFraudClass();
 
-            LogisticRegressionModel mdl = trainer.fit(
-                    ignite,
-                    trainData,
-                    (k, v) -> VectorUtils.of(v.getFeatures()),     // Feature extractor.
-                    (k, v) -> v.getFraudClass()                    // Label extractor.
-            ).withRawLabels(true);
+            // Training runs in chunks of checkpointInterval iterations. The model and the iteration counter are stored
+            // after every chunk, so a restarted client or a fit interrupted by a topology change resumes from there.
+            int checkpointInterval = Integer.getInteger("ignite.checkpoint.interval", 10_000);
+            if (checkpointInterval < 1)
+                throw new IllegalArgumentException("Checkpoint interval must be positive: " + checkpointInterval);
 
-            System.out.println(">>> -----------------------------");
-            System.out.println(">>> | Prediction | Ground Truth |");
-            System.out.println(">>> -----------------------------");
+            // The trainer runs whole rounds of local iterations, so a chunk is rounded up to a multiple of them.
+            int locIterations = trainer.getLocIterations();
+            checkpointInterval = (checkpointInterval + locIterations - 1) / locIterations * locIterations;
 
-            int amountOfErrors = 0;
-            int totalAmount = 0;
-            int[][] confusionMtx = {{0, 0}, {0, 0}};
+            IgniteCache<String, TrainingCheckpoint> checkpoints = getCheckpointCache(ignite);
 
-            try (QueryCursor<Cache.Entry<Integer, FraudObservation>> cursor = testData.query(new ScanQuery<>())) {
-                for (Cache.Entry<Integer, FraudObservation> testEntry : cursor) {
-                    FraudObservation observation = testEntry.getValue();
+            // Checkpoints were taken on the data that has just been replaced.
+            if (!restored)
+                checkpoints.clear();
 
-                    double groundTruth = observation.getFraudClass();
-                    double prediction = mdl.apply(VectorUtils.of(observation.getFeatures()));
+            // A checkpoint is only resumed by a run with the same configuration.
+            String checkpointKey = String.format(
+                    "LOGISTIC_REGRESSION[maxIterations=%d, locIterations=%d, batchSize=%d, nofraud=%s, fraud=%s]",
+                    MAX_ITERATIONS, locIterations, trainer.getBatchSize(), noFraudRate, fraudRate);
 
-                    totalAmount++;
-                    if ((int) groundTruth != (int) prediction)
-                        amountOfErrors++;
+            TrainingCheckpoint checkpoint = checkpoints.get(checkpointKey);
 
-                    int idx1 = (int) prediction;
-                    int idx2 = (int) groundTruth;
+            LogisticRegressionModel sampledMdl = checkpoint == null ? null : checkpoint.getModel();
+            int iterations = checkpoint == null ? 0 : checkpoint.getIterations();
+            int failures = 0;
 
-                    confusionMtx[idx1][idx2]++;
+            if (iterations > 0)
+                System.out.println(">>> Resuming training from checkpoint at iteration " + iterations);
 
-                    System.out.printf(">>> | %.4f\t | %.0f\t\t\t|\n", prediction, groundTruth);
+            while (iterations < MAX_ITERATIONS) {
+                int chunk = Math.min(checkpointInterval, MAX_ITERATIONS - iterations);
+
+                // A different seed per chunk keeps resumed runs from replaying the same mini-batches.
+                trainer.withMaxIterations(chunk).withSeed(123L + iterations);
+
+                try {
+                    sampledMdl = sampledMdl == null
+                            ? trainer.fit(ignite, trainData, sampler, featureExtractor, lbExtractor)
+                            : trainer.update(sampledMdl, ignite, trainData, sampler, featureExtractor, lbExtractor);
                 }
+                catch (IgniteException e) {
+                    // Retrying only helps if the failure did not take train rows with it.
+                    if (!NodeConfiguration.isComplete(ignite, trainData))
+                        throw new IgniteException(INCOMPLETE_TRAIN_DATA, e);
 
-                System.out.println(">>> -----------------------------");
+                    if (++failures > MAX_CHECKPOINT_RETRIES)
+                        throw e;
 
-                System.out.println("\n>>> Absolute amount of errors " + amountOfErrors);
-                System.out.printf("\n>>> Accuracy %.4f\n", (1 - amountOfErrors / (double) totalAmount));
-                System.out.printf("\n>>> Precision %.4f\n", (double) confusionMtx[0][0] / (double) (confusionMtx[0][0]
-                    + confusionMtx[0][1]));
-                System.out.printf("\n>>> Recall %.4f\n", (double) confusionMtx[0][0] / (double) (confusionMtx[0][0] +
-                    confusionMtx[1][0]));
+                    System.out.println(">>> Training interrupted, resuming from iteration " + iterations + ": "
+                        + e.getMessage());
 
-                System.out.println("\n>>> Confusion matrix is " + Arrays.deepToString(confusionMtx));
+                    continue;
+                }
 
-                System.out.println();
+                // A node can leave between two rounds without failing the fit.
+                if (!NodeConfiguration.isComplete(ignite, trainData))
+                    throw new IgniteException(INCOMPLETE_TRAIN_DATA);
 
-                System.out.format("%32s%32s%32s", "|", "NO FRAUD |", " FRAUD |\n");
-                System.out.format("%32s%4d%28s%4d%28s", "NO FRAUD |", confusionMtx[0][0], " (true positives) |",
-                    confusionMtx[0][1], " (false positives)  |\n");
-                System.out.format("%32s%32s%32s", "|", "  |", "  |\n");
-                System.out.format("%32s%32s%32s", "|", "  |", "  |\n");
-                System.out.format("%32s%4d%28s%4d%28s", "FRAUD |", confusionMtx[1][0], " (false negatives) |",
-                    confusionMtx[1][1], " (true negatives) |\n");
+                iterations += chunk;
+                failures = 0;
 
-                System.out.println();
+                checkpoints.put(checkpointKey, new TrainingCheckpoint(sampledMdl, iterations));
             }
+
+            // The next run trains from scratch.
+            checkpoints.remove(checkpointKey);
+
+            // Shift the intercept back to the class priors of the full data set.
+            LogisticRegressionModel mdl = sampledMdl
+                    .withIntercept(sampledMdl.intercept() + sampler.logOddsCorrection())
+                    .withRawLabels(true);
+
+            int bins = Integer.getInteger("ignite.histogram.bins", 1000);
+            double logitRange = Double.parseDouble(System.getProperty("ignite.histogram.logit.range", "20"));
+
+            // The operating threshold is chosen on the training data, so the test metrics below are not tuned to
+            // the test set.
+            double threshold = score(ignite, trainData, mdl, bins, logitRange).bestThreshold();
+
+            ScoreHistogram histogram = score(ignite, testData, mdl, bins, logitRange);
+            long[][] confusionMtx = histogram.confusionMatrix(threshold);
+
+            long totalAmount = confusionMtx[0][0] + confusionMtx[0][1] + confusionMtx[1][0] + confusionMtx[1][1];
+            long amountOfErrors = confusionMtx[0][1] + confusionMtx[1][0];
+
+            System.out.printf("\n>>> ROC-AUC %.4f\n", histogram.rocAuc());
+            System.out.printf("\n>>> PR-AUC (fraud as positive class) %.4f\n", histogram.prAuc());
+            System.out.printf("\n>>> Threshold (max F1 for fraud on train data) %.6f (logit %.2f)\n", threshold,
+                Math.log(threshold / (1 - threshold)));
+
+            System.out.println("\n>>> Absolute amount of errors " + amountOfErrors);
+            System.out.printf("\n>>> Accuracy %.4f\n", (1 - amountOfErrors / (double) totalAmount));
+            System.out.printf("\n>>> Precision (NO FRAUD) %.4f\n", (double) confusionMtx[0][0] /
+                (double) (confusionMtx[0][0] + confusionMtx[0][1]));
+            System.out.printf("\n>>> Recall (NO FRAUD) %.4f\n", (double) confusionMtx[0][0] /
+                (double) (confusionMtx[0][0] + confusionMtx[1][0]));
+            System.out.printf("\n>>> Precision (FRAUD) %.4f\n", (double) confusionMtx[1][1] /
+                (double) (confusionMtx[1][1] + confusionMtx[1][0]));
+            System.out.printf("\n>>> Recall (FRAUD) %.4f\n", (double) confusionMtx[1][1] /
+                (double) (confusionMtx[1][1] + confusionMtx[0][1]));
+
+            System.out.println("\n>>> Confusion matrix is " + Arrays.deepToString(confusionMtx));
+
+            System.out.println();
+
+            System.out.format("%32s%32s%32s", "|", "NO FRAUD |", " FRAUD |\n");
+            System.out.format("%32s%4d%28s%4d%28s", "NO FRAUD |", confusionMtx[0][0], " (true positives) |",
+                confusionMtx[0][1], " (false positives)  |\n");
+            System.out.format("%32s%32s%32s", "|", "  |", "  |\n");
+            System.out.format("%32s%32s%32s", "|", "  |", "  |\n");
+            System.out.format("%32s%4d%28s%4d%28s", "FRAUD |", confusionMtx[1][0], " (false negatives) |",
+                confusionMtx[1][1], " (true negatives) |\n");
+
+            System.out.println();
+        }
+    }
+
+    /**
+     * Scores are binned into a fixed-size histogram on every partition and the histograms are merged, so the data
+     * is neither collected on the client nor sorted.
+     */
+    private static ScoreHistogram score(Ignite ignite, IgniteCache<Integer, FraudObservation> cache,
+            LogisticRegressionModel mdl, int bins, double logitRange) throws Exception {
+
+        try (SimpleLabeledDataset<EmptyContext> dataset = DatasetFactory.createSimpleLabeledDataset(
+                ignite,
+                cache,
+                (k, v) -> VectorUtils.of(v.getFeatures()),     // Feature extractor.
+                (k, v) -> new double[] {v.getFraudClass()}     // Label extractor.
+        )) {
+            return dataset.compute(
+                    data -> ScoreHistogram.of(mdl, data, bins, logitRange),
+                    ScoreHistogram::merge
+            );
         }
     }
 
-    private static IgniteCache<Integer, FraudObservation> getCache(Ignite ignite, String cacheName) {
+    private static IgniteCache<Integer, FraudObservation> getCache(Ignite ignite, String cacheName,
+            String dataRegionName) {
 
         CacheConfiguration<Integer, FraudObservation> cacheConfiguration = new CacheConfiguration<>();
         cacheConfiguration.setName(cacheName);
-        cacheConfiguration.setAffinity(new RendezvousAffinityFunction(false, 10));
+        cacheConfiguration.setDataRegionName(dataRegionName);
+        int partitions = NodeConfiguration.partitions(ignite);
+        cacheConfiguration.setAffinity(new RendezvousAffinityFunction(false, partitions));
 
         IgniteCache<Integer, FraudObservation> cache = ignite.getOrCreateCache(cacheConfiguration);
 
+        NodeConfiguration.checkPartitions(cache, partitions);
+
+        return cache;
+    }
+
+    /** Checkpoints are replicated so that they survive the loss of any single node. */
+    private static IgniteCache<String, TrainingCheckpoint> getCheckpointCache(Ignite ignite) {
+
+        CacheConfiguration<String, TrainingCheckpoint> cacheConfiguration = new CacheConfiguration<>();
+        cacheConfiguration.setName("FRAUD_CHECKPOINTS");
+        cacheConfiguration.setDataRegionName(NodeConfiguration.TRAIN_REGION);
+        cacheConfiguration.setCacheMode(CacheMode.REPLICATED);
+
+        IgniteCache<String, TrainingCheckpoint> cache = ignite.getOrCreateCache(cacheConfiguration);
+
         return cache;
     }
 
+    private static class TrainingCheckpoint implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LogisticRegressionModel model;
+
+        private final int iterations;
+
+        public TrainingCheckpoint(LogisticRegressionModel model, int iterations) {
+            this.model = model;
+            this.iterations = iterations;
+        }
+
+        public LogisticRegressionModel getModel() {
+            return model;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+    }
+
     private static class FraudObservation {
 
         private final double[] features;
@@ -154,6 +313,214 @@ public class ClientNode {
         }
     }
 
+    /**
+     * Fixed-size histogram of predicted fraud probabilities split by ground truth. Bins are equally wide in logit
+     * space over {@code [-logitRange, logitRange]}, so the scores of a rare class are not squeezed into the first few
+     * bins. Partition histograms are merged bin by bin, and all threshold-dependent metrics are computed from the
+     * cumulative counts.
+     */
+    private static class ScoreHistogram implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long[] fraud;
+
+        private final long[] noFraud;
+
+        private final double logitRange;
+
+        public ScoreHistogram(int bins, double logitRange) {
+            fraud = new long[bins];
+            noFraud = new long[bins];
+            this.logitRange = logitRange;
+        }
+
+        public static ScoreHistogram of(LogisticRegressionModel mdl, SimpleLabeledDatasetData data, int bins,
+            double logitRange) {
+            ScoreHistogram histogram = new ScoreHistogram(bins, logitRange);
+
+            int rows = data.getRows();
+            if (rows == 0)
+                return histogram;
+
+            // Features are stored column by column.
+            double[] features = data.getFeatures();
+            double[] row = new double[features.length / rows];
+
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < row.length; j++)
+                    row[j] = features[j * rows + i];
+
+                histogram.add(mdl.apply(VectorUtils.of(row)), data.getLabels()[i]);
+            }
+
+            return histogram;
+        }
+
+        public static ScoreHistogram merge(ScoreHistogram a, ScoreHistogram b) {
+            if (a == null)
+                return b;
+            if (b == null)
+                return a;
+
+            for (int i = 0; i < a.fraud.length; i++) {
+                a.fraud[i] += b.fraud[i];
+                a.noFraud[i] += b.noFraud[i];
+            }
+
+            return a;
+        }
+
+        public void add(double score, double label) {
+            double logit = Math.log(score / (1 - score));
+            int bin = (int) Math.floor((logit + logitRange) / binWidth());
+            bin = Math.max(0, Math.min(bin, fraud.length - 1));
+
+            if ((int) label == 1)
+                fraud[bin]++;
+            else
+                noFraud[bin]++;
+        }
+
+        /** Area under the ROC curve, integrated with the trapezoidal rule from the highest bin down. */
+        public double rocAuc() {
+            long totalFraud = Arrays.stream(fraud).sum();
+            long totalNoFraud = Arrays.stream(noFraud).sum();
+
+            if (totalFraud == 0 || totalNoFraud == 0)
+                return Double.NaN;
+
+            double area = 0;
+            long tp = 0;
+
+            for (int i = fraud.length - 1; i >= 0; i--) {
+                area += noFraud[i] * (tp + fraud[i] / 2.0);
+
+                tp += fraud[i];
+            }
+
+            return area / ((double) totalFraud * totalNoFraud);
+        }
+
+        /** Area under the precision-recall curve for the fraud class, as average precision over the bins. */
+        public double prAuc() {
+            long totalFraud = Arrays.stream(fraud).sum();
+
+            if (totalFraud == 0)
+                return Double.NaN;
+
+            double area = 0;
+            long tp = 0;
+            long fp = 0;
+
+            for (int i = fraud.length - 1; i >= 0; i--) {
+                tp += fraud[i];
+                fp += noFraud[i];
+
+                if (fraud[i] > 0)
+                    area += (fraud[i] / (double) totalFraud) * (tp / (double) (tp + fp));
+            }
+
+            return area;
+        }
+
+        /** Probability at the lower edge of the bin that maximises F1 for the fraud class. */
+        public double bestThreshold() {
+            long totalFraud = Arrays.stream(fraud).sum();
+
+            double bestF1 = -1;
+            int bestBin = fraud.length / 2;
+            long tp = 0;
+            long fp = 0;
+
+            for (int i = fraud.length - 1; i >= 0; i--) {
+                tp += fraud[i];
+                fp += noFraud[i];
+
+                double f1 = 2.0 * tp / (tp + fp + totalFraud);
+                if (f1 > bestF1) {
+                    bestF1 = f1;
+                    bestBin = i;
+                }
+            }
+
+            return 1 / (1 + Math.exp(-(bestBin * binWidth() - logitRange)));
+        }
+
+        /**
+         * Confusion matrix at the given threshold, indexed as [prediction][ground truth] with NO FRAUD = 0 and
+         * FRAUD = 1. Scores falling into the bin starting at the threshold are predicted as fraud.
+         */
+        public long[][] confusionMatrix(double threshold) {
+            // Thresholds are bin edges, so rounding avoids landing one bin too low on floating point error.
+            double logit = Math.log(threshold / (1 - threshold));
+            long thresholdBin = Math.round((logit + logitRange) / binWidth());
+            long[][] confusionMtx = {{0, 0}, {0, 0}};
+
+            for (int i = 0; i < fraud.length; i++) {
+                int prediction = i >= thresholdBin ? 1 : 0;
+
+                confusionMtx[prediction][0] += noFraud[i];
+                confusionMtx[prediction][1] += fraud[i];
+            }
+
+            return confusionMtx;
+        }
+
+        private double binWidth() {
+            return 2 * logitRange / fraud.length;
+        }
+    }
+
+    /**
+     * Seeded Bernoulli sampler with a separate keep rate per class. The decision depends only on the key and the
+     * seed, so every partition and every repeated fit sees the same sample.
+     */
+    private static class StratifiedSampler implements IgniteBiPredicate<Integer, FraudObservation> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long seed;
+
+        private final double[] rates;
+
+        public StratifiedSampler(long seed, double... rates) {
+            // A zero rate drops a class and makes the intercept correction infinite, a rate above 1 keeps every row
+            // but would still shift the intercept.
+            for (double rate : rates) {
+                if (!(rate > 0 && rate <= 1))
+                    throw new IllegalArgumentException("Sampling rate must be in (0, 1]: " + rate);
+            }
+
+            this.seed = seed;
+            this.rates = rates;
+        }
+
+        @Override public boolean apply(Integer key, FraudObservation observation) {
+            double rate = rates[(int) observation.getFraudClass()];
+
+            return rate == 1.0 || uniform(key) < rate;
+        }
+
+        /**
+         * Term to add to the logit of a model trained on the sample: sampling the classes at different rates
+         * multiplies the odds of fraud by {@code rates[1] / rates[0]}.
+         */
+        public double logOddsCorrection() {
+            return Math.log(rates[0] / rates[1]);
+        }
+
+        private double uniform(int key) {
+            // SplitMix64 finalizer.
+            long z = seed + key * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+
+            return (z >>> 11) * 0x1.0p-53;
+        }
+    }
+
     private static class Loader {
         private void load(String fileName, IgniteCache<Integer, FraudObservation> cache) throws FileNotFoundException {
             ClassLoader classLoader = getClass().getClassLoader();
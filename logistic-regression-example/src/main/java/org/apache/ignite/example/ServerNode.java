@@ -25,8 +25,7 @@ public class ServerNode {
 
     public static void main(String... args) {
 
-            IgniteConfiguration configuration = new IgniteConfiguration();
-            configuration.setClientMode(false);
+            IgniteConfiguration configuration = NodeConfiguration.create();
 
             Ignite ignite = Ignition.start(configuration);
 